@@ -0,0 +1,266 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import org.subethamail.wiser.Wiser;
+
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Provides a set of assertions that wait for messages to be received by
+ * subethamail's Wiser.
+ *
+ * <p>Each assertion returns a {@link CompletableFuture} that completes when a
+ * matching message has been received, or fails with an {@link AssertionError}
+ * if none is received before the timeout. Waiting on the future, with
+ * {@link CompletableFuture#join()}, is cheap on a virtual thread, and the
+ * messages are checked by a single dispatcher shared by every waiter.</p>
+ * <pre>
+ * <code>
+ * {@literal @}Test
+ *  public void testMail() {
+ *      //given
+ *      AsyncWiserAssertions assertions =
+ *              WiserAssertions.assertReceivedMessageAsync(wiser)
+ *                             .withTimeout(Duration.ofSeconds(5));
+ *      //when ...
+ *      //then
+ *      CompletableFuture.allOf(
+ *              assertions.to(recipient),
+ *              assertions.withSubject(subject)
+ *      ).join();
+ *  }
+ * </code>
+ * </pre>
+ */
+public final class AsyncWiserAssertions {
+
+    /**
+     * The timeout used unless another is given.
+     */
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Wiser wiser;
+    private final MessageDispatcher dispatcher;
+    private final Duration timeout;
+
+    /**
+     * Creates the assertions for the server.
+     *
+     * @param wiser      the SMTP server instance
+     * @param dispatcher the dispatcher to register expectations with
+     * @param timeout    how long to wait for a matching message
+     */
+    AsyncWiserAssertions(
+            final Wiser wiser,
+            final MessageDispatcher dispatcher,
+            final Duration timeout
+    ) {
+        this.wiser = wiser;
+        this.dispatcher = dispatcher;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates a copy of these assertions that will wait for the given time.
+     *
+     * @param waitFor how long to wait for a matching message
+     *
+     * @return a new {@code AsyncWiserAssertions} instance
+     */
+    public AsyncWiserAssertions withTimeout(final Duration waitFor) {
+        return new AsyncWiserAssertions(wiser, dispatcher, waitFor);
+    }
+
+    /**
+     * Waits for an email to be received that was sent from the
+     * {@code sender}.
+     *
+     * @param sender email address to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> from(final String sender) {
+        return expect(m -> m.getEnvelopeSender().equals(sender),
+                WiserAssertions.ERROR_MESSAGE_FROM, sender);
+    }
+
+    /**
+     * Waits for an email to be received that was sent to the
+     * {@code recipient}.
+     *
+     * @param recipient email address to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> to(final String recipient) {
+        return expect(m -> m.getEnvelopeReceiver().equals(recipient),
+                WiserAssertions.ERROR_MESSAGE_TO, recipient);
+    }
+
+    /**
+     * Waits for an email to be received that has the required subject.
+     *
+     * @param subject the subject line to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withSubject(final String subject) {
+        return expectContent(c -> subject.equals(c.getSubject()),
+                WiserAssertions.ERROR_MESSAGE_SUBJECT, subject);
+    }
+
+    /**
+     * Waits for an email to be received that has a subject that contains the
+     * search text.
+     *
+     * @param subject the text to search for in the subject
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withSubjectContains(final String subject) {
+        return expectContent(c -> c.getSubject() != null && c.getSubject().contains(subject),
+                WiserAssertions.ERROR_MESSAGE_SUBJECT, subject);
+    }
+
+    /**
+     * Waits for an email to be received that has a body that matches the
+     * content.
+     *
+     * @param content the body of the email to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withContent(final String content) {
+        return withContent(content, new Normalization[0]);
+    }
+
+    /**
+     * Waits for an email to be received that has a body that matches the
+     * content, once both have been normalized.
+     *
+     * @param content the body of the email to search for
+     * @param modes   the normalizations to apply before comparing
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withContent(final String content, final Normalization... modes) {
+        final Set<Normalization> normalizations = Normalizer.modes(modes);
+        final String expected = Normalizer.normalizeExpected(content, normalizations);
+        return expectContent(c -> Normalizer.sameText(expected, c.getNormalizedBody(normalizations)),
+                WiserAssertions.ERROR_MESSAGE_CONTENT, content);
+    }
+
+    /**
+     * Waits for an email to be received that has {@code text/plain} parts
+     * that match the content.
+     *
+     * @param content the plain text body of the email to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withTextContent(final String content) {
+        final String expected = content.trim();
+        return expectContent(c -> c.getTextBody().trim().equals(expected),
+                WiserAssertions.ERROR_MESSAGE_TEXT_CONTENT, content);
+    }
+
+    /**
+     * Waits for an email to be received that has {@code text/html} parts that
+     * match the content.
+     *
+     * @param content the html body of the email to search for
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withHtmlContent(final String content) {
+        final String expected = content.trim();
+        return expectContent(c -> c.getHtmlBody().trim().equals(expected),
+                WiserAssertions.ERROR_MESSAGE_HTML_CONTENT, content);
+    }
+
+    /**
+     * Waits for an email to be received that contains the search text.
+     *
+     * @param content the text to search for in the body of the email
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> withContentContains(final String content) {
+        return expectContent(c -> c.getBody().trim().contains(content),
+                WiserAssertions.ERROR_MESSAGE_CONTENT_CONTAINS, content);
+    }
+
+    /**
+     * Waits for an email to be received that satisfies the predicate.
+     *
+     * <p>The predicate is called on the dispatcher thread, and should not
+     * block.</p>
+     *
+     * @param predicate the check to apply to each message
+     *
+     * @return a future that completes when a matching message is received
+     */
+    public CompletableFuture<Void> matches(final Predicate<ReceivedMail> predicate) {
+        return expect(predicate::test, WiserAssertions.ERROR_MESSAGE_MATCHES_PREDICATE);
+    }
+
+    /**
+     * Waits for an email to be received that satisfies the predicate, naming
+     * the check in the failure message.
+     *
+     * @param description what the predicate checks, for the failure message
+     * @param predicate   the check to apply to each message
+     *
+     * @return a future that completes when a matching message is received
+     *
+     * @see #matches(Predicate)
+     */
+    public CompletableFuture<Void> matches(final String description, final Predicate<ReceivedMail> predicate) {
+        return expect(predicate::test, WiserAssertions.ERROR_MESSAGE_MATCHES, description);
+    }
+
+    private CompletableFuture<Void> expectContent(
+            final Predicate<MessageContent> predicate,
+            final String errorMessage,
+            final Object... args
+    ) {
+        return expect(m -> predicate.test(m.getContent()), errorMessage, args);
+    }
+
+    private CompletableFuture<Void> expect(
+            final Predicate<StoredMessage> predicate,
+            final String errorMessage,
+            final Object... args
+    ) {
+        final AtomicInteger unreadable = new AtomicInteger();
+        return dispatcher.expect(wiser, WiserAssertions.readable(predicate, unreadable), timeout,
+                () -> new AssertionError(MessageFormat.format(errorMessage, args)
+                        + WiserAssertions.unreadable(unreadable.get())));
+    }
+
+}
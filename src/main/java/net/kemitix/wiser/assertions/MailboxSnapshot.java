@@ -0,0 +1,292 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the messages in a {@link MessageStore} to a file, and loads them back.
+ *
+ * <p>Each distinct message content is written once, followed by the envelope
+ * of every delivery, then an index of the offset of each content within the
+ * file:</p>
+ * <pre>
+ * int      magic, "WISR"
+ * int      version
+ * int      content count
+ * int      message count
+ * contents length (int) and raw data of each content
+ * messages sender (UTF), receiver (UTF) and content number (int) of each delivery
+ * index    offset (long) of each content
+ * long     offset of the index
+ * </pre>
+ *
+ * <p>Files are read and written sequentially through large buffers. Loading
+ * only reads the raw data; each message is parsed when an assertion first
+ * needs it. The index is not used for access when loading, as the contents are
+ * read in order; it is only compared with the offsets found while reading, as
+ * a check that the file is intact. Every count, length and content number is
+ * also checked against the size of the file before it is used.</p>
+ */
+final class MailboxSnapshot {
+
+    private static final int MAGIC = 0x57495352;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 16;
+    private static final int MIN_CONTENT_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int MIN_MESSAGE_SIZE = Short.BYTES + Short.BYTES + Integer.BYTES;
+
+    private MailboxSnapshot() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Writes the messages in the store to the file, replacing it if it
+     * exists.
+     *
+     * <p>The snapshot is written to a temporary file in the same directory,
+     * which then replaces the file, so that a failed write leaves any earlier
+     * snapshot intact.</p>
+     *
+     * @param store the messages to write
+     * @param file  the file to write to
+     *
+     * @throws IOException if the file can't be written
+     */
+    static void write(final MessageStore store, final Path file) throws IOException {
+        final Path target = file.toAbsolutePath();
+        final Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            write(store.messages(), temp);
+            replace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(final List<StoredMessage> messages, final Path file) throws IOException {
+        // number the contents from the one list of messages, so that messages
+        // arriving while writing can't leave a message without its content
+        final List<MessageContent> contents = new ArrayList<>();
+        final Map<MessageContent, Integer> numbers = new IdentityHashMap<>();
+        for (final StoredMessage message : messages) {
+            numbers.computeIfAbsent(message.getContent(), content -> {
+                contents.add(content);
+                return contents.size() - 1;
+            });
+        }
+        final long[] offsets = new long[contents.size()];
+        final CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE));
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(contents.size());
+            out.writeInt(messages.size());
+            for (int i = 0; i < contents.size(); i++) {
+                final byte[] data = contents.get(i).getData();
+                offsets[i] = counter.position();
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            for (final StoredMessage message : messages) {
+                out.writeUTF(message.getEnvelopeSender());
+                out.writeUTF(message.getEnvelopeReceiver());
+                out.writeInt(numbers.get(message.getContent()));
+            }
+            final long indexOffset = counter.position();
+            for (final long offset : offsets) {
+                out.writeLong(offset);
+            }
+            out.writeLong(indexOffset);
+        }
+    }
+
+    /**
+     * Reads the messages in the file into a new store.
+     *
+     * @param file the file to read from
+     *
+     * @return a store containing the messages
+     *
+     * @throws IOException if the file can't be read, or is not an intact
+     *                     snapshot
+     */
+    static MessageStore read(final Path file) throws IOException {
+        final long size = Files.size(file);
+        final MessageStore store = new MessageStore();
+        final CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+        try (DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(MessageFormat.format("Not a mailbox snapshot: {0}", file));
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(MessageFormat.format(
+                        "Unsupported mailbox snapshot version {0}: {1}", version, file));
+            }
+            final int contentCount = checked(in.readInt(), (size - HEADER_SIZE) / MIN_CONTENT_SIZE, file);
+            final int messageCount = checked(in.readInt(), (size - HEADER_SIZE) / MIN_MESSAGE_SIZE, file);
+            final MessageContent[] contents = new MessageContent[contentCount];
+            final long[] offsets = new long[contentCount];
+            for (int i = 0; i < contentCount; i++) {
+                offsets[i] = counter.position();
+                final byte[] data = new byte[checked(in.readInt(), size - counter.position(), file)];
+                in.readFully(data);
+                contents[i] = store.content(data);
+            }
+            for (int i = 0; i < messageCount; i++) {
+                final String sender = in.readUTF();
+                final String receiver = in.readUTF();
+                final int number = checked(in.readInt(), contentCount - 1L, file);
+                store.add(sender, receiver, contents[number]);
+            }
+            final long indexOffset = counter.position();
+            for (final long offset : offsets) {
+                if (in.readLong() != offset) {
+                    throw new IOException(MessageFormat.format("Corrupt mailbox snapshot index: {0}", file));
+                }
+            }
+            if (in.readLong() != indexOffset) {
+                throw new IOException(MessageFormat.format("Corrupt mailbox snapshot index: {0}", file));
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Checks a count, length or index read from the file before it is used.
+     *
+     * @param value   the value read
+     * @param maximum the largest value the file could hold
+     * @param file    the file, for the error message
+     *
+     * @return the value
+     *
+     * @throws IOException if the value is negative or too large
+     */
+    private static int checked(final int value, final long maximum, final Path file) throws IOException {
+        if (value < 0 || value > maximum) {
+            throw new IOException(MessageFormat.format("Corrupt mailbox snapshot: {0}", file));
+        }
+        return value;
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long position;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            final long skipped = super.skip(count);
+            position += skipped;
+            return skipped;
+        }
+
+    }
+
+    /**
+     * Counts the bytes written to a stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long position;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+            out.write(buffer, offset, length);
+            position += length;
+        }
+
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import java.util.function.Supplier;
+
+/**
+ * A value that is computed on first access and then remembered.
+ *
+ * <p>Safe to share between threads. If the supplier throws, nothing is
+ * remembered and the next access will try again.</p>
+ *
+ * @param <T> the type of the value
+ */
+final class Memo<T> {
+
+    private final Supplier<T> supplier;
+    private volatile boolean computed;
+    private T value;
+
+    /**
+     * Creates a memo for the value of the supplier.
+     *
+     * @param supplier the source of the value
+     */
+    Memo(final Supplier<T> supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * Returns the value, computing it if this is the first access.
+     *
+     * @return the value
+     */
+    T get() {
+        if (!computed) {
+            synchronized (this) {
+                if (!computed) {
+                    value = supplier.get();
+                    computed = true;
+                }
+            }
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * The raw data of a received message, together with the results of parsing it.
+ *
+ * <p>Each parse result is computed on first use and then cached, so every
+ * {@link StoredMessage} that shares this content also shares the parsing.</p>
+ *
+ * <p>If the body can't be read, each of the body accessors throws a
+ * {@link MimeMessageException} without reading the message again.</p>
+ */
+final class MessageContent {
+
+    private static final String TEXT_PLAIN = "text/plain";
+    private static final String TEXT_HTML = "text/html";
+    private static final Session SESSION = Session.getDefaultInstance(new Properties());
+
+    private final byte[] data;
+    private final Memo<MimeMessage> mimeMessage = new Memo<>(this::parseMimeMessage);
+    private final Memo<String> subject = new Memo<>(this::parseSubject);
+    private final Memo<Map<String, List<String>>> headers = new Memo<>(this::parseHeaders);
+    private final Memo<Bodies> bodies = new Memo<>(this::parseBodies);
+    private final Map<Set<Normalization>, String> normalizedBodies = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the content for the raw message data.
+     *
+     * @param data the raw message, as received by the SMTP server
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    MessageContent(final byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * The raw message data. This is not a copy, and must not be modified.
+     *
+     * @return the raw message
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * The parsed mime message.
+     *
+     * @return the mime message
+     */
+    MimeMessage getMimeMessage() {
+        return mimeMessage.get();
+    }
+
+    /**
+     * The message headers, keyed by name ignoring case.
+     *
+     * @return an unmodifiable map of the header values
+     */
+    Map<String, List<String>> getHeaders() {
+        return headers.get();
+    }
+
+    /**
+     * The values of a message header.
+     *
+     * @param name the name of the header, ignoring case
+     *
+     * @return the values of the header, which is empty if it is not present
+     */
+    List<String> getHeader(final String name) {
+        return getHeaders().getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * The subject of the message.
+     *
+     * @return the subject
+     */
+    String getSubject() {
+        return subject.get();
+    }
+
+    /**
+     * The body of the message, with all text parts joined together.
+     *
+     * @return the message body
+     */
+    String getBody() {
+        return readBodies().all;
+    }
+
+    /**
+     * The body of the message, normalized with the given modes.
+     *
+     * <p>With {@link Normalization#HTML_TO_TEXT}, only the {@code text/html}
+     * body is converted and compared, as the {@code text/plain} parts of an
+     * html message are usually an alternative version of it. A message with no
+     * html uses its {@code text/plain} body, unconverted. Without it, the
+     * whole body is used.</p>
+     *
+     * <p>The result is cached for each set of modes.</p>
+     *
+     * @param modes the modes, as created by {@link Normalizer#modes(Normalization...)}
+     *
+     * @return the normalized message body
+     */
+    String getNormalizedBody(final Set<Normalization> modes) {
+        return normalizedBodies.computeIfAbsent(modes, this::normalizeBody);
+    }
+
+    private String normalizeBody(final Set<Normalization> modes) {
+        if (!modes.contains(Normalization.HTML_TO_TEXT)) {
+            return Normalizer.normalize(getBody(), modes);
+        }
+        if (getHtmlBody().isEmpty()) {
+            return Normalizer.normalize(getTextBody(), Normalizer.without(modes, Normalization.HTML_TO_TEXT));
+        }
+        return Normalizer.normalize(getHtmlBody(), modes);
+    }
+
+    /**
+     * The body of the message, with only the {@code text/plain} parts joined
+     * together.
+     *
+     * @return the plain text body
+     */
+    String getTextBody() {
+        return readBodies().plain;
+    }
+
+    /**
+     * The body of the message, with only the {@code text/html} parts joined
+     * together.
+     *
+     * @return the html body
+     */
+    String getHtmlBody() {
+        return readBodies().html;
+    }
+
+    /**
+     * The attachments of the message, being those parts that are marked as
+     * attachments, or are not text.
+     *
+     * @return an unmodifiable list of the attachments
+     */
+    List<Part> getAttachments() {
+        return readBodies().attachments;
+    }
+
+    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+    private MimeMessage parseMimeMessage() {
+        try {
+            return new MimeMessage(SESSION, new ByteArrayInputStream(data));
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Invalid email message", e);
+        }
+    }
+
+    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+    private String parseSubject() {
+        try {
+            return getMimeMessage().getSubject();
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Invalid email message", e);
+        }
+    }
+
+    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+    private Map<String, List<String>> parseHeaders() {
+        final Map<String, List<String>> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        try {
+            final Enumeration<?> allHeaders = getMimeMessage().getAllHeaders();
+            while (allHeaders.hasMoreElements()) {
+                final Header header = (Header) allHeaders.nextElement();
+                values.computeIfAbsent(header.getName(), name -> new ArrayList<>())
+                        .add(header.getValue());
+            }
+        } catch (MessagingException e) {
+            throw new IllegalArgumentException("Invalid email message", e);
+        }
+        values.replaceAll((name, list) -> Collections.unmodifiableList(list));
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Walks the message once. If the walk fails, such as when the parts are
+     * nested too deeply, the failure is remembered rather than the message
+     * being walked again by each assertion.
+     */
+    private Bodies parseBodies() {
+        final BodyCollector collector = new BodyCollector();
+        try {
+            new MultipartWalker().walk(getMimeMessage(), collector::append);
+        } catch (MimeMessageException e) {
+            return new Bodies(e);
+        }
+        return collector.bodies();
+    }
+
+    private Bodies readBodies() {
+        final Bodies result = bodies.get();
+        if (result.failure != null) {
+            throw new MimeMessageException(result.failure.getMessage(), result.failure);
+        }
+        return result;
+    }
+
+    /**
+     * The text of a message.
+     */
+    private static final class Bodies {
+
+        private final String all;
+        private final String plain;
+        private final String html;
+        private final List<Part> attachments;
+        private final MimeMessageException failure;
+
+        Bodies(
+                final String all,
+                final String plain,
+                final String html,
+                final List<Part> attachments
+        ) {
+            this.all = all;
+            this.plain = plain;
+            this.html = html;
+            this.attachments = attachments;
+            this.failure = null;
+        }
+
+        Bodies(final MimeMessageException failure) {
+            this.all = null;
+            this.plain = null;
+            this.html = null;
+            this.attachments = null;
+            this.failure = failure;
+        }
+
+    }
+
+    /**
+     * Gathers the text of a message in a single walk over its parts.
+     */
+    private static final class BodyCollector {
+
+        private final StringBuilder all = new StringBuilder();
+        private final StringBuilder plain = new StringBuilder();
+        private final StringBuilder html = new StringBuilder();
+        private final List<Part> attachments = new ArrayList<>();
+
+        @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+        void append(final Part part, final Object content) {
+            try {
+                final boolean attachment = Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition());
+                if (attachment || !(content instanceof String)) {
+                    attachments.add(part);
+                }
+                if (content instanceof String) {
+                    final String text = (String) content;
+                    all.append(text);
+                    if (!attachment && part.isMimeType(TEXT_PLAIN)) {
+                        plain.append(text);
+                    } else if (!attachment && part.isMimeType(TEXT_HTML)) {
+                        html.append(text);
+                    }
+                }
+            } catch (MessagingException e) {
+                throw new MimeMessageException("Unable to read message part", e);
+            }
+        }
+
+        Bodies bodies() {
+            return new Bodies(all.toString(), plain.toString(), html.toString(),
+                    Collections.unmodifiableList(attachments));
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import org.subethamail.wiser.Wiser;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Matches messages as they arrive at Wiser servers against the pending
+ * expectations of {@link AsyncWiserAssertions}.
+ *
+ * <p>A single daemon thread serves every expectation on every server. Each
+ * arriving message is parsed at most once, and tested against all the pending
+ * expectations for its server, rather than each waiter polling separately.</p>
+ *
+ * <p>Futures are completed on the dispatcher thread, so any dependent stage
+ * that blocks should be added using one of the {@code *Async} methods of
+ * {@link CompletableFuture}.</p>
+ */
+final class MessageDispatcher {
+
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The servers with pending expectations. Only accessed on the dispatcher
+     * thread.
+     */
+    private final Map<Wiser, Watch> watches = new IdentityHashMap<>();
+
+    private MessageDispatcher() {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "wiser-assertions-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The dispatcher, which is started on first use.
+     *
+     * @return the dispatcher
+     */
+    static MessageDispatcher instance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Registers an expectation that a matching message will be received by the
+     * server.
+     *
+     * <p>Messages that have already been received are checked first.</p>
+     *
+     * @param wiser     the server
+     * @param predicate the test for a matching message
+     * @param timeout   how long to wait for a matching message
+     * @param error     the error to fail with if no message matches in time
+     *
+     * @return a future that completes when a matching message is received, or
+     *         fails with the error on timeout
+     */
+    CompletableFuture<Void> expect(
+            final Wiser wiser,
+            final Predicate<StoredMessage> predicate,
+            final Duration timeout,
+            final Supplier<AssertionError> error
+    ) {
+        final Expectation expectation = new Expectation(predicate);
+        final ScheduledFuture<?> timer = executor.schedule(
+                () -> expectation.future.completeExceptionally(error.get()),
+                timeout.toMillis(), TimeUnit.MILLISECONDS);
+        expectation.future.whenComplete((result, failure) -> timer.cancel(false));
+        executor.execute(() -> register(wiser, expectation));
+        return expectation.future;
+    }
+
+    @SuppressWarnings("illegalcatch")
+    private void register(final Wiser wiser, final Expectation expectation) {
+        try {
+            final Watch watch = watches.computeIfAbsent(wiser, w -> new Watch(MessageStore.of(w)));
+            watch.dispatchNewMessages();
+            watch.store.messages().forEach(expectation::offer);
+            if (!expectation.future.isDone()) {
+                watch.pending.add(expectation);
+            }
+        } catch (Throwable e) {
+            expectation.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Dispatches any new messages to the pending expectations.
+     *
+     * <p>Nothing may escape from here, as the executor would then stop
+     * running it, and every later expectation would wait until it timed out.
+     * If a server can't be polled, its pending expectations fail instead.</p>
+     */
+    @SuppressWarnings("illegalcatch")
+    private void poll() {
+        final Iterator<Watch> iterator = watches.values().iterator();
+        while (iterator.hasNext()) {
+            final Watch watch = iterator.next();
+            try {
+                watch.dispatchNewMessages();
+                watch.pending.removeIf(expectation -> expectation.future.isDone());
+            } catch (Throwable e) {
+                watch.pending.forEach(expectation -> expectation.future.completeExceptionally(e));
+                watch.pending.clear();
+            }
+            if (watch.pending.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The messages received by a server, and the expectations waiting on it.
+     */
+    private static final class Watch {
+
+        private final MessageStore store;
+        private final List<Expectation> pending = new ArrayList<>();
+        private final MessageStore.Position seen = new MessageStore.Position();
+
+        Watch(final MessageStore store) {
+            this.store = store;
+        }
+
+        void dispatchNewMessages() {
+            final List<StoredMessage> arrived = store.messagesFrom(seen);
+            arrived.forEach(message -> pending.forEach(expectation -> expectation.offer(message)));
+        }
+
+    }
+
+    /**
+     * A pending expectation.
+     */
+    private static final class Expectation {
+
+        private final Predicate<StoredMessage> predicate;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Expectation(final Predicate<StoredMessage> predicate) {
+            this.predicate = predicate;
+        }
+
+        @SuppressWarnings("illegalcatch")
+        void offer(final StoredMessage message) {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                if (predicate.test(message)) {
+                    future.complete(null);
+                }
+            } catch (Throwable e) {
+                // including an AssertionError from within a custom predicate
+                future.completeExceptionally(e);
+            }
+        }
+
+    }
+
+    /**
+     * Lazily creates the dispatcher.
+     */
+    private static final class Holder {
+
+        private static final MessageDispatcher INSTANCE = new MessageDispatcher();
+
+    }
+
+}
@@ -0,0 +1,296 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import org.subethamail.wiser.Wiser;
+import org.subethamail.wiser.WiserMessage;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A content-addressed store of the messages to be tested by the assertions.
+ *
+ * <p>When a message is sent to many recipients, Wiser holds an identical copy
+ * of the raw data for each of them. The store keys each message by its raw
+ * data, so that identical messages share a single {@link MessageContent}, and
+ * so are only parsed once.</p>
+ *
+ * <p>Keying is deferred until the content of a message is first needed, so
+ * queries on the envelope alone never hash the raw data.</p>
+ *
+ * <p>When created over a live source, such as the list of messages held by
+ * Wiser, any messages that have arrived since the last query are added before
+ * each query is answered. If messages are removed from the source, as when a
+ * test clears the messages held by Wiser, the store starts again from the
+ * messages that remain.</p>
+ *
+ * <p>There is one store for each Wiser, shared by the assertions, the
+ * dispatcher for asynchronous assertions and the writing of snapshots, so that
+ * each message is only keyed and parsed once however many assertions are
+ * made.</p>
+ */
+final class MessageStore {
+
+    private static final Map<Wiser, MessageStore> STORES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Supplier<List<WiserMessage>> source;
+    private final List<StoredMessage> messages = new ArrayList<>();
+    private final List<MessageContent> contents = new ArrayList<>();
+    private final Map<ContentKey, MessageContent> contentsByKey = new HashMap<>();
+    private int cursor;
+    private int keyed;
+    private int generation;
+    private WeakReference<WiserMessage> lastRead = new WeakReference<>(null);
+
+    /**
+     * Creates a store that follows the source list of messages.
+     *
+     * <p>If the source is a synchronized list, as used by Wiser, it will be
+     * locked while new messages are read from it.</p>
+     *
+     * @param source the messages to follow
+     */
+    MessageStore(final List<WiserMessage> source) {
+        this(() -> source);
+    }
+
+    private MessageStore(final Supplier<List<WiserMessage>> source) {
+        this.source = source;
+    }
+
+    /**
+     * Creates an empty store that has no source and will only contain messages
+     * that are explicitly added.
+     */
+    MessageStore() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * The store that follows the messages received by the Wiser.
+     *
+     * <p>The store is created on first use and then shared until the Wiser is
+     * garbage collected. As each message held by Wiser refers back to it, the
+     * store only holds a weak reference to the Wiser.</p>
+     *
+     * @param wiser the Wiser server
+     *
+     * @return the store for the Wiser
+     */
+    static MessageStore of(final Wiser wiser) {
+        return STORES.computeIfAbsent(wiser, MessageStore::following);
+    }
+
+    private static MessageStore following(final Wiser wiser) {
+        final WeakReference<Wiser> reference = new WeakReference<>(wiser);
+        return new MessageStore(() -> {
+            final Wiser followed = reference.get();
+            if (followed == null) {
+                return Collections.emptyList();
+            }
+            return followed.getMessages();
+        });
+    }
+
+    /**
+     * Adds a message to the store.
+     *
+     * @param envelopeSender   the SMTP envelope sender
+     * @param envelopeReceiver the SMTP envelope receiver
+     * @param data             the raw message data
+     *
+     * @return the stored message
+     */
+    synchronized StoredMessage add(
+            final String envelopeSender,
+            final String envelopeReceiver,
+            final byte[] data
+    ) {
+        return add(new StoredMessage(envelopeSender, envelopeReceiver, this, data));
+    }
+
+    /**
+     * Adds a message whose content has already been added to the store.
+     *
+     * <p>This avoids hashing the same raw data again for each delivery.</p>
+     *
+     * @param envelopeSender   the SMTP envelope sender
+     * @param envelopeReceiver the SMTP envelope receiver
+     * @param content          the content, as returned by {@link #content(byte[])}
+     *
+     * @return the stored message
+     */
+    synchronized StoredMessage add(
+            final String envelopeSender,
+            final String envelopeReceiver,
+            final MessageContent content
+    ) {
+        return add(new StoredMessage(envelopeSender, envelopeReceiver, this, content));
+    }
+
+    private StoredMessage add(final StoredMessage message) {
+        messages.add(message);
+        return message;
+    }
+
+    /**
+     * Adds the raw data to the store, unless identical data is already held.
+     *
+     * @param data the raw message data
+     *
+     * @return the content for the data
+     */
+    synchronized MessageContent content(final byte[] data) {
+        return contentsByKey.computeIfAbsent(new ContentKey(data), key -> {
+            final MessageContent content = new MessageContent(data);
+            contents.add(content);
+            return content;
+        });
+    }
+
+    /**
+     * All the messages in the store, in the order they were received.
+     *
+     * @return a snapshot of the messages
+     */
+    synchronized List<StoredMessage> messages() {
+        catchUp();
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * The messages in the store that have arrived since the position, in the
+     * order they were received, moving the position past them.
+     *
+     * <p>If the store has started again since the position was last used,
+     * all the messages in the store are returned.</p>
+     *
+     * @param position the position of the first message to return
+     *
+     * @return a snapshot of the messages, which may be empty
+     */
+    synchronized List<StoredMessage> messagesFrom(final Position position) {
+        catchUp();
+        if (position.generation != generation) {
+            position.generation = generation;
+            position.index = 0;
+        }
+        final int fromIndex = position.index;
+        position.index = messages.size();
+        if (fromIndex >= messages.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(messages.subList(fromIndex, messages.size()));
+    }
+
+    /**
+     * The distinct contents of the messages in the store, in the order they
+     * were first received.
+     *
+     * @return a snapshot of the contents
+     */
+    synchronized List<MessageContent> contents() {
+        catchUp();
+        for (; keyed < messages.size(); keyed++) {
+            messages.get(keyed).getContent();
+        }
+        return new ArrayList<>(contents);
+    }
+
+    private void catchUp() {
+        final List<WiserMessage> received = source.get();
+        synchronized (received) {
+            final int size = received.size();
+            if (size < cursor || cursor > 0 && received.get(cursor - 1) != lastRead.get()) {
+                restart();
+            }
+            for (; cursor < size; cursor++) {
+                final WiserMessage message = received.get(cursor);
+                add(message.getEnvelopeSender(), message.getEnvelopeReceiver(), message.getData());
+            }
+            if (cursor > 0) {
+                lastRead = new WeakReference<>(received.get(cursor - 1));
+            }
+        }
+    }
+
+    /**
+     * Forgets every message, after messages have been removed from the
+     * source, so that they can be read again from the start.
+     */
+    private void restart() {
+        messages.clear();
+        contents.clear();
+        contentsByKey.clear();
+        cursor = 0;
+        keyed = 0;
+        generation++;
+    }
+
+    /**
+     * A position in the store, for reading only the messages that have
+     * arrived since it was last used.
+     */
+    static final class Position {
+
+        private int generation;
+        private int index;
+
+    }
+
+    /**
+     * Identifies message content by its raw data.
+     */
+    private static final class ContentKey {
+
+        private final byte[] data;
+        private final int hash;
+
+        ContentKey(final byte[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof ContentKey
+                    && hash == ((ContentKey) other).hash
+                    && Arrays.equals(data, ((ContentKey) other).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
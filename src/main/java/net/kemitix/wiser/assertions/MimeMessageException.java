@@ -36,4 +36,14 @@ public class MimeMessageException extends RuntimeException {
     public MimeMessageException(final String message) {
         super(message);
     }
+
+    /**
+     * Create an assertion with a message and the original exception.
+     *
+     * @param message the message
+     * @param cause   the original exception
+     */
+    public MimeMessageException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,159 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+
+/**
+ * Walks the tree of parts within a message, visiting each leaf part in
+ * document order.
+ *
+ * <p>The walk uses an explicit stack rather than recursion, and refuses to
+ * descend beyond a maximum depth, so that deeply nested, or malformed, messages
+ * can't overflow the call stack.</p>
+ */
+final class MultipartWalker {
+
+    /**
+     * The maximum depth used if none is given.
+     */
+    static final int DEFAULT_MAX_DEPTH = 32;
+
+    private final int maxDepth;
+
+    /**
+     * Creates a walker with the default maximum depth.
+     */
+    MultipartWalker() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates a walker with a maximum depth.
+     *
+     * @param maxDepth the deepest level of nesting that will be walked, where
+     *                 the root part is at depth zero
+     */
+    MultipartWalker(final int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Visits each leaf part beneath the root part.
+     *
+     * <p>Multiparts, and embedded messages, are descended into. Every other
+     * part is a leaf and is passed to the visitor along with its content.</p>
+     *
+     * @param root    the part to start from, usually the message
+     * @param visitor the visitor for each leaf part
+     *
+     * @throws MimeMessageException if the parts can't be read, or are nested
+     *                              too deeply
+     */
+    void walk(final Part root, final LeafVisitor visitor) {
+        final Deque<Node> stack = new ArrayDeque<>();
+        stack.push(new Node(root, 0));
+        while (!stack.isEmpty()) {
+            final Node node = stack.pop();
+            final Object content = contentOf(node.part);
+            if (content instanceof Multipart) {
+                pushChildren(stack, (Multipart) content, node.depth + 1);
+            } else if (content instanceof Part) {
+                stack.push(new Node((Part) content, checkDepth(node.depth + 1)));
+            } else {
+                visitor.visit(node.part, content);
+            }
+        }
+    }
+
+    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+    private void pushChildren(final Deque<Node> stack, final Multipart multipart, final int depth) {
+        checkDepth(depth);
+        try {
+            // pushed in reverse so that they are popped in document order
+            for (int i = multipart.getCount() - 1; i >= 0; i--) {
+                stack.push(new Node(multipart.getBodyPart(i), depth));
+            }
+        } catch (MessagingException e) {
+            throw new MimeMessageException("Unable to read multipart", e);
+        }
+    }
+
+    private int checkDepth(final int depth) {
+        if (depth > maxDepth) {
+            throw new MimeMessageException(MessageFormat.format(
+                    "Message parts nested deeper than {0} levels", maxDepth));
+        }
+        return depth;
+    }
+
+    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
+    private static Object contentOf(final Part part) {
+        try {
+            return part.getContent();
+        } catch (IOException | MessagingException e) {
+            throw new MimeMessageException("Unable to read message part", e);
+        }
+    }
+
+    /**
+     * Receives each leaf part found by the walker.
+     */
+    @FunctionalInterface
+    interface LeafVisitor {
+
+        /**
+         * Visit a leaf part.
+         *
+         * @param part    the part
+         * @param content the content of the part, as returned by
+         *                {@link Part#getContent()}
+         */
+        void visit(Part part, Object content);
+
+    }
+
+    /**
+     * A part waiting to be walked, and its depth within the tree.
+     */
+    private static final class Node {
+
+        private final Part part;
+        private final int depth;
+
+        Node(final Part part, final int depth) {
+            this.part = part;
+            this.depth = depth;
+        }
+
+    }
+
+}
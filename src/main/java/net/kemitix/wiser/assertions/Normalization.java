@@ -0,0 +1,56 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+/**
+ * Ways of normalizing message bodies before comparing them with
+ * {@link WiserAssertions#withContent(String, Normalization...)}.
+ *
+ * <p>Leading and trailing whitespace is always removed. The modes given are
+ * applied in the order they are declared here.</p>
+ */
+public enum Normalization {
+
+    /**
+     * Converts html to plain text, by dropping comments, scripts, styles and
+     * tags, starting a new line after line breaks and block elements, and
+     * decoding character entities, with {@code &nbsp;} becoming a space.
+     *
+     * <p>Only the {@code text/html} body of a message is converted and
+     * compared. A message without html is compared on its
+     * {@code text/plain} body, which is not converted. Nor is the expected
+     * content, which should be written as text.</p>
+     */
+    HTML_TO_TEXT,
+
+    /**
+     * Converts CRLF and CR line endings to LF.
+     */
+    LINE_ENDINGS,
+
+    /**
+     * Replaces each run of whitespace, including line endings and non-breaking
+     * spaces, with a single space.
+     */
+    WHITESPACE
+
+}
@@ -0,0 +1,223 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies {@link Normalization} modes to text.
+ */
+final class Normalizer {
+
+    private static final Pattern HTML_HIDDEN = Pattern.compile("(?is)<(script|style)\\b[^>]*>.*?</\\1\\s*>");
+    private static final Pattern HTML_COMMENT = Pattern.compile("(?s)<!--.*?-->");
+    private static final Pattern HTML_BREAK = Pattern.compile("(?i)<br\\b[^>]*>|</(p|div|li|tr|h[1-6])\\s*>");
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern HTML_ENTITY = Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z]+);");
+    private static final int HEX = 16;
+    private static final char NBSP = '\u00A0';
+
+    private Normalizer() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Creates an immutable set of modes, suitable for use as a cache key.
+     *
+     * @param modes the modes
+     *
+     * @return the set of modes
+     */
+    static Set<Normalization> modes(final Normalization... modes) {
+        final Set<Normalization> set = EnumSet.noneOf(Normalization.class);
+        set.addAll(Arrays.asList(modes));
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Creates an immutable set of modes, without the given mode.
+     *
+     * @param modes the modes
+     * @param mode  the mode to leave out
+     *
+     * @return the set of modes
+     */
+    static Set<Normalization> without(final Set<Normalization> modes, final Normalization mode) {
+        final Set<Normalization> set = EnumSet.noneOf(Normalization.class);
+        set.addAll(modes);
+        set.remove(mode);
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Normalizes the text.
+     *
+     * @param text  the text to normalize
+     * @param modes the modes to apply
+     *
+     * @return the normalized text, with leading and trailing whitespace removed
+     */
+    static String normalize(final String text, final Set<Normalization> modes) {
+        String result = text;
+        if (modes.contains(Normalization.HTML_TO_TEXT)) {
+            result = htmlToText(result);
+        }
+        if (modes.contains(Normalization.LINE_ENDINGS)) {
+            result = normalizeLineEndings(result);
+        }
+        if (modes.contains(Normalization.WHITESPACE)) {
+            result = collapseWhitespace(result);
+        }
+        return result.trim();
+    }
+
+    /**
+     * Normalizes the expected content of an assertion.
+     *
+     * <p>The expected content is already text, so it is not converted by
+     * {@link Normalization#HTML_TO_TEXT}. The other modes are applied.</p>
+     *
+     * @param content the expected content
+     * @param modes   the modes to apply
+     *
+     * @return the normalized content
+     */
+    static String normalizeExpected(final String content, final Set<Normalization> modes) {
+        return normalize(content, without(modes, Normalization.HTML_TO_TEXT));
+    }
+
+    /**
+     * Compares normalized texts, checking the cheapest differences first.
+     *
+     * <p>The hash code of a {@link String} is cached, so once each side has
+     * been compared, later mismatches are usually found without reading the
+     * text.</p>
+     *
+     * @param expected the expected text
+     * @param actual   the actual text
+     *
+     * @return true if the texts are the same
+     */
+    static boolean sameText(final String expected, final String actual) {
+        return expected.length() == actual.length()
+                && expected.hashCode() == actual.hashCode()
+                && expected.equals(actual);
+    }
+
+    private static String htmlToText(final String html) {
+        final String visible = HTML_COMMENT.matcher(HTML_HIDDEN.matcher(html).replaceAll("")).replaceAll("");
+        final String broken = HTML_BREAK.matcher(visible).replaceAll("\n");
+        return decodeEntities(HTML_TAG.matcher(broken).replaceAll(""));
+    }
+
+    private static String decodeEntities(final String text) {
+        final Matcher matcher = HTML_ENTITY.matcher(text);
+        final StringBuilder builder = new StringBuilder(text.length());
+        while (matcher.find()) {
+            final String decoded = decodeEntity(matcher.group(1), matcher.group());
+            matcher.appendReplacement(builder, Matcher.quoteReplacement(decoded));
+        }
+        matcher.appendTail(builder);
+        return builder.toString();
+    }
+
+    private static String decodeEntity(final String entity, final String original) {
+        if (entity.startsWith("#")) {
+            return decodeCodePoint(entity, original);
+        }
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+            default:
+                return original;
+        }
+    }
+
+    private static String decodeCodePoint(final String entity, final String original) {
+        final boolean hex = entity.startsWith("#x") || entity.startsWith("#X");
+        try {
+            final int codePoint = hex
+                    ? Integer.parseInt(entity.substring(2), HEX)
+                    : Integer.parseInt(entity.substring(1));
+            return new String(Character.toChars(codePoint));
+        } catch (IllegalArgumentException e) {
+            // out of range, so leave it as it was
+            return original;
+        }
+    }
+
+    private static String normalizeLineEndings(final String text) {
+        if (text.indexOf('\r') < 0) {
+            return text;
+        }
+        final StringBuilder builder = new StringBuilder(text.length());
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            final char c = text.charAt(i);
+            if (c == '\r') {
+                builder.append('\n');
+                if (i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else {
+                builder.append(c);
+            }
+            i++;
+        }
+        return builder.toString();
+    }
+
+    private static String collapseWhitespace(final String text) {
+        final StringBuilder builder = new StringBuilder(text.length());
+        boolean inWhitespace = false;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == NBSP) {
+                if (!inWhitespace) {
+                    builder.append(' ');
+                }
+                inWhitespace = true;
+            } else {
+                builder.append(c);
+                inWhitespace = false;
+            }
+        }
+        return builder.toString();
+    }
+
+}
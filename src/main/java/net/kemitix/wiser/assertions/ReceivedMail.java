@@ -0,0 +1,111 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.Part;
+
+/**
+ * A view of a message received by Wiser, for use in custom checks with
+ * {@link WiserAssertions#matches(java.util.function.Predicate)}.
+ *
+ * <p>Nothing is parsed until it is asked for, and each result is remembered.
+ * The parsing is shared with the built-in assertions, and with every other
+ * delivery of the same message.</p>
+ */
+public interface ReceivedMail {
+
+    /**
+     * The SMTP envelope sender.
+     *
+     * @return the sender
+     */
+    String getEnvelopeSender();
+
+    /**
+     * The SMTP envelope receiver.
+     *
+     * @return the receiver
+     */
+    String getEnvelopeReceiver();
+
+    /**
+     * The message headers, keyed by name ignoring case.
+     *
+     * @return an unmodifiable map of the header values
+     */
+    Map<String, List<String>> getHeaders();
+
+    /**
+     * The values of a message header.
+     *
+     * @param name the name of the header, ignoring case
+     *
+     * @return the values of the header, which is empty if it is not present
+     */
+    List<String> getHeader(String name);
+
+    /**
+     * The subject of the message.
+     *
+     * @return the subject, or null if there is none
+     */
+    String getSubject();
+
+    /**
+     * The body of the message, with all text parts joined together.
+     *
+     * @return the message body
+     */
+    String getBody();
+
+    /**
+     * The body of the message, with only the {@code text/plain} parts joined
+     * together.
+     *
+     * @return the plain text body
+     */
+    String getTextBody();
+
+    /**
+     * The body of the message, with only the {@code text/html} parts joined
+     * together.
+     *
+     * @return the html body
+     */
+    String getHtmlBody();
+
+    /**
+     * The attachments of the message, being those parts that are marked as
+     * attachments, or are not text.
+     *
+     * <p>The parts are shared with the other assertions, and with every other
+     * delivery of the same message, so they must only be read, and never
+     * modified.</p>
+     *
+     * @return an unmodifiable list of the attachments
+     */
+    List<Part> getAttachments();
+
+}
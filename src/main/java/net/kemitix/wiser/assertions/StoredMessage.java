@@ -0,0 +1,154 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2018 Paul Campbell
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies
+ * or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package net.kemitix.wiser.assertions;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.Part;
+
+/**
+ * A single delivery held in a {@link MessageStore}.
+ *
+ * <p>The envelope is held per delivery, while the content may be shared with
+ * other deliveries of the same raw message. The content is only looked up in
+ * the store when it is first needed, so assertions on the envelope alone never
+ * read the raw data.</p>
+ *
+ * <p>The {@link ReceivedMail} view delegates to the shared content, so that
+ * each result is only parsed once.</p>
+ */
+final class StoredMessage implements ReceivedMail {
+
+    private final String envelopeSender;
+    private final String envelopeReceiver;
+    private final MessageStore store;
+    private final byte[] data;
+
+    /**
+     * The shared content, guarded by the lock on the store.
+     */
+    private MessageContent content;
+
+    /**
+     * Creates a stored message whose content will be looked up in the store
+     * when it is first needed.
+     *
+     * @param envelopeSender   the SMTP envelope sender
+     * @param envelopeReceiver the SMTP envelope receiver
+     * @param store            the store holding the message
+     * @param data             the raw message data
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP2")
+    StoredMessage(
+            final String envelopeSender,
+            final String envelopeReceiver,
+            final MessageStore store,
+            final byte[] data
+    ) {
+        this.envelopeSender = envelopeSender;
+        this.envelopeReceiver = envelopeReceiver;
+        this.store = store;
+        this.data = data;
+    }
+
+    /**
+     * Creates a stored message whose content is already in the store.
+     *
+     * @param envelopeSender   the SMTP envelope sender
+     * @param envelopeReceiver the SMTP envelope receiver
+     * @param store            the store holding the message
+     * @param content          the, possibly shared, message content
+     */
+    StoredMessage(
+            final String envelopeSender,
+            final String envelopeReceiver,
+            final MessageStore store,
+            final MessageContent content
+    ) {
+        this(envelopeSender, envelopeReceiver, store, content.getData());
+        this.content = content;
+    }
+
+    @Override
+    public String getEnvelopeSender() {
+        return envelopeSender;
+    }
+
+    @Override
+    public String getEnvelopeReceiver() {
+        return envelopeReceiver;
+    }
+
+    /**
+     * The, possibly shared, message content, which is looked up in the store
+     * on first use.
+     *
+     * @return the message content
+     */
+    MessageContent getContent() {
+        synchronized (store) {
+            if (content == null) {
+                content = store.content(data);
+            }
+            return content;
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+        return getContent().getHeaders();
+    }
+
+    @Override
+    public List<String> getHeader(final String name) {
+        return getContent().getHeader(name);
+    }
+
+    @Override
+    public String getSubject() {
+        return getContent().getSubject();
+    }
+
+    @Override
+    public String getBody() {
+        return getContent().getBody();
+    }
+
+    @Override
+    public String getTextBody() {
+        return getContent().getTextBody();
+    }
+
+    @Override
+    public String getHtmlBody() {
+        return getContent().getHtmlBody();
+    }
+
+    @Override
+    public List<Part> getAttachments() {
+        return getContent().getAttachments();
+    }
+
+}
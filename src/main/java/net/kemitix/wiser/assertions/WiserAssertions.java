@@ -21,25 +21,22 @@
 
 package net.kemitix.wiser.assertions;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import net.kemitix.mon.maybe.Maybe;
-import net.kemitix.mon.result.Result;
 import org.subethamail.wiser.Wiser;
-import org.subethamail.wiser.WiserMessage;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import javax.mail.BodyPart;
-import javax.mail.MessagingException;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
+import java.util.stream.Stream;
 
 /**
  * Provides a set of assertions for checking the status of any messages received
@@ -78,23 +75,37 @@ import javax.mail.internet.MimeMultipart;
 @SuppressWarnings("methodcount")
 public final class WiserAssertions {
 
-    private static final String ERROR_MESSAGE_SUBJECT = "No message with subject [{0}] found!";
-    private static final String ERROR_MESSAGE_CONTENT_CONTAINS = "No message with content containing [{0}] found!";
-    private static final String ERROR_MESSAGE_CONTENT = "No message with content [{0}] found!";
-    private static final String ERROR_MESSAGE_TO = "No message to [{0}] found!";
+    static final String ERROR_MESSAGE_FROM = "No message from [{0}] found!";
+    static final String ERROR_MESSAGE_SUBJECT = "No message with subject [{0}] found!";
+    static final String ERROR_MESSAGE_CONTENT_CONTAINS = "No message with content containing [{0}] found!";
+    static final String ERROR_MESSAGE_CONTENT = "No message with content [{0}] found!";
+    static final String ERROR_MESSAGE_TEXT_CONTENT = "No message with text/plain content [{0}] found!";
+    static final String ERROR_MESSAGE_HTML_CONTENT = "No message with text/html content [{0}] found!";
+    static final String ERROR_MESSAGE_TO = "No message to [{0}] found!";
+    static final String ERROR_MESSAGE_MATCHES = "No message matching [{0}] found!";
+    static final String ERROR_MESSAGE_MATCHES_PREDICATE = "No message matching predicate found!";
 
     /**
-     * The messages received by Wiser.
+     * The messages received by each Wiser server, or loaded from each
+     * snapshot.
      */
-    private final List<WiserMessage> messages;
+    private final List<Shard> shards;
+
+    /**
+     * The name of the shard that satisfied the most recent assertion.
+     */
+    private volatile String lastMatchedShard;
 
     /**
      * Private constructor.
      *
-     * @param wiserMessages the messages to be tested by the assertions
+     * @param shards the messages to be tested by the assertions
      */
-    private WiserAssertions(final List<WiserMessage> wiserMessages) {
-        this.messages = wiserMessages;
+    private WiserAssertions(final List<Shard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No message sources given");
+        }
+        this.shards = shards;
     }
 
     /**
@@ -106,7 +117,106 @@ public final class WiserAssertions {
      * @return an instance of {@code WiserAssertions}
      */
     public static WiserAssertions assertReceivedMessage(final Wiser wiser) {
-        return new WiserAssertions(wiser.getMessages());
+        return assertReceivedMessage(new Wiser[]{wiser});
+    }
+
+    /**
+     * Creates an instance of {@code WiserAssertions} ready to make assertions
+     * on the messages received by any of the {@link Wiser} servers.
+     *
+     * <p>Each server is a shard, and the shards are searched concurrently. The
+     * shard that satisfied the most recent assertion is available from
+     * {@link #lastMatchedShard()}.</p>
+     *
+     * @param wisers the SMTP server instances
+     *
+     * @return an instance of {@code WiserAssertions}
+     */
+    public static WiserAssertions assertReceivedMessage(final Wiser... wisers) {
+        final List<Shard> shards = new ArrayList<>(wisers.length);
+        for (int i = 0; i < wisers.length; i++) {
+            final Wiser wiser = wisers[i];
+            final String name = "wiser[" + i + "]:" + wiser.getServer().getPort();
+            shards.add(new Shard(name, MessageStore.of(wiser)));
+        }
+        return new WiserAssertions(shards);
+    }
+
+    /**
+     * Creates an instance of {@code WiserAssertions} ready to make assertions
+     * on the messages in a snapshot file, saved by
+     * {@link #saveSnapshot(Wiser, Path)}.
+     *
+     * <p>The file is read in a single pass, but messages are only parsed as
+     * the assertions need them.</p>
+     *
+     * @param snapshot the snapshot file
+     *
+     * @return an instance of {@code WiserAssertions}
+     *
+     * @throws WiserAssertionException if the snapshot can't be read
+     */
+    public static WiserAssertions assertReceivedMessage(final Path snapshot) {
+        return assertReceivedMessage(new Path[]{snapshot});
+    }
+
+    /**
+     * Creates an instance of {@code WiserAssertions} ready to make assertions
+     * on the messages in any of the snapshot files.
+     *
+     * <p>Each snapshot is a shard, and the shards are searched concurrently.
+     * The shard that satisfied the most recent assertion is available from
+     * {@link #lastMatchedShard()}.</p>
+     *
+     * @param snapshots the snapshot files
+     *
+     * @return an instance of {@code WiserAssertions}
+     *
+     * @throws WiserAssertionException if any snapshot can't be read
+     */
+    public static WiserAssertions assertReceivedMessage(final Path... snapshots) {
+        final List<Shard> shards = new ArrayList<>(snapshots.length);
+        try {
+            for (final Path snapshot : snapshots) {
+                shards.add(new Shard(snapshot.toString(), MailboxSnapshot.read(snapshot)));
+            }
+        } catch (IOException e) {
+            throw new WiserAssertionException(e);
+        }
+        return new WiserAssertions(shards);
+    }
+
+    /**
+     * Saves the messages received by the {@link Wiser} server to a snapshot
+     * file, so that assertions can later be run against them with
+     * {@link #assertReceivedMessage(Path)}.
+     *
+     * <p>Messages with identical content, such as those sent to many
+     * recipients, only have their content saved once.</p>
+     *
+     * @param wiser    the SMTP server instance
+     * @param snapshot the snapshot file, which will be replaced if it exists
+     *
+     * @throws WiserAssertionException if the snapshot can't be written
+     */
+    public static void saveSnapshot(final Wiser wiser, final Path snapshot) {
+        try {
+            MailboxSnapshot.write(MessageStore.of(wiser), snapshot);
+        } catch (IOException e) {
+            throw new WiserAssertionException(e);
+        }
+    }
+
+    /**
+     * Creates an instance of {@link AsyncWiserAssertions} ready to wait for
+     * messages to be received by the {@link Wiser} server.
+     *
+     * @param wiser the SMTP server instance
+     *
+     * @return an instance of {@code AsyncWiserAssertions}
+     */
+    public static AsyncWiserAssertions assertReceivedMessageAsync(final Wiser wiser) {
+        return new AsyncWiserAssertions(wiser, MessageDispatcher.instance(), AsyncWiserAssertions.DEFAULT_TIMEOUT);
     }
 
     /**
@@ -118,20 +228,164 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions from(final String sender) {
-        messageMatches(m -> m.getEnvelopeSender().equals(sender))
-                .orElseThrow(assertionError("No message from [{0}] found!", sender));
+        messageMatches(m -> m.getEnvelopeSender().equals(sender), ERROR_MESSAGE_FROM, sender);
+        return this;
+    }
+
+    private void messageMatches(
+            final Predicate<StoredMessage> predicate,
+            final String errorMessage,
+            final Object... args
+    ) {
+        findShard((store, search) -> store.messages().stream()
+                .takeWhile(m -> !search.stop.get())
+                .anyMatch(readable(predicate, search.unreadable)), errorMessage, args);
+    }
+
+    /**
+     * Searches the distinct message contents, so that a message sent to many
+     * recipients is only checked once.
+     *
+     * @param predicate    the test to apply to each content
+     * @param errorMessage the message for the failure if none match
+     * @param args         the parameters to insert into the message
+     */
+    private void contentMatches(
+            final Predicate<MessageContent> predicate,
+            final String errorMessage,
+            final Object... args
+    ) {
+        findShard((store, search) -> store.contents().stream()
+                .takeWhile(c -> !search.stop.get())
+                .anyMatch(readable(predicate, search.unreadable)), errorMessage, args);
+    }
+
+    /**
+     * Treats a message that can't be read, such as one whose parts are nested
+     * too deeply, as not matching, so that it can't prevent assertions about
+     * the other messages.
+     *
+     * <p>Each unreadable message is counted, so that a failure can say how
+     * many messages could not be checked.</p>
+     *
+     * @param predicate  the test to apply to each message
+     * @param unreadable the count of messages that could not be read
+     * @param <T>        the type of message
+     *
+     * @return the test, which fails for unreadable messages
+     */
+    static <T> Predicate<T> readable(final Predicate<T> predicate, final AtomicInteger unreadable) {
+        return message -> {
+            try {
+                return predicate.test(message);
+            } catch (MimeMessageException e) {
+                unreadable.incrementAndGet();
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Describes the messages that could not be read, for a failure message.
+     *
+     * @param unreadable the number of messages that could not be read
+     *
+     * @return the description, or an empty string if all could be read
+     */
+    static String unreadable(final int unreadable) {
+        if (unreadable == 0) {
+            return "";
+        }
+        return " (" + unreadable + " message(s) could not be read)";
+    }
+
+    /**
+     * Searches each shard, concurrently when there is more than one, and
+     * records the name of the first to match.
+     *
+     * <p>Once a shard has matched, the search tells the others to stop so
+     * that they can give up early.</p>
+     *
+     * @param searcher     the search to run against a shard's messages
+     * @param errorMessage the message for the failure if no shard matches
+     * @param args         the parameters to insert into the message
+     */
+    private void findShard(
+            final BiPredicate<MessageStore, Search> searcher,
+            final String errorMessage,
+            final Object... args
+    ) {
+        final Search search = new Search();
+        final Stream<Shard> stream = shards.size() == 1
+                ? shards.stream()
+                : shards.parallelStream();
+        lastMatchedShard = stream
+                .filter(shard -> searcher.test(shard.store, search) && !search.stop.getAndSet(true))
+                .map(shard -> shard.name)
+                .findAny()
+                .orElseThrow(assertionError(search, errorMessage, args));
+    }
+
+    /**
+     * The name of the shard that satisfied the most recent successful
+     * assertion.
+     *
+     * <p>Shards are named {@code wiser[index]:port} for servers, in the order
+     * they were given, or by their path, as given, for snapshots.</p>
+     *
+     * <p>The name is replaced by every successful assertion. If one instance
+     * is shared between threads, it may be the shard that satisfied another
+     * thread's assertion, so each thread should make its own assertions
+     * instance.</p>
+     *
+     * @return the name of the shard, or empty if no assertion has yet
+     *         succeeded
+     */
+    public Optional<String> lastMatchedShard() {
+        return Optional.ofNullable(lastMatchedShard);
+    }
+
+    /**
+     * Checks that there was at least one email received that satisfies the
+     * predicate.
+     *
+     * <p>For checks that the other assertions can't express. The
+     * {@link ReceivedMail} passed to the predicate only parses what is asked
+     * of it, and shares its parsing with the other assertions.</p>
+     *
+     * @param predicate the check to apply to each message
+     *
+     * @return the {@code WiserAssertions} instance
+     */
+    public WiserAssertions matches(final Predicate<ReceivedMail> predicate) {
+        messageMatches(predicate::test, ERROR_MESSAGE_MATCHES_PREDICATE);
         return this;
     }
 
-    private Optional<WiserMessage> messageMatches(final Predicate<WiserMessage> predicate) {
-        return messages.stream()
-                .filter(predicate)
-                .findAny();
+    /**
+     * Checks that there was at least one email received that satisfies the
+     * predicate, naming the check in the failure message.
+     *
+     * @param description what the predicate checks, for the failure message
+     * @param predicate   the check to apply to each message
+     *
+     * @return the {@code WiserAssertions} instance
+     *
+     * @see #matches(Predicate)
+     */
+    public WiserAssertions matches(final String description, final Predicate<ReceivedMail> predicate) {
+        messageMatches(predicate::test, ERROR_MESSAGE_MATCHES, description);
+        return this;
     }
 
     /**
      * Returns a {@link Supplier} for an {@link AssertionError}.
      *
+     * <p>The number of messages that could not be read is added to the
+     * message, as are the names of the shards that were searched when there
+     * is more than one.</p>
+     *
+     * @param search       the search that failed
      * @param errorMessage the message for the exception
      * @param args         the parameters to insert into the message using
      *                     {@link MessageFormat}
@@ -140,8 +394,22 @@ public final class WiserAssertions {
      */
     @SuppressWarnings(
             {"ThrowableInstanceNotThrown", "ThrowableInstanceNeverThrown"})
-    private static Supplier<AssertionError> assertionError(final String errorMessage, final Object... args) {
-        return () -> new AssertionError(MessageFormat.format(errorMessage, args));
+    private Supplier<AssertionError> assertionError(
+            final Search search,
+            final String errorMessage,
+            final Object... args
+    ) {
+        return () -> new AssertionError(MessageFormat.format(errorMessage, args)
+                + unreadable(search.unreadable.get()) + searchedShards());
+    }
+
+    private String searchedShards() {
+        if (shards.size() == 1) {
+            return "";
+        }
+        return shards.stream()
+                .map(shard -> shard.name)
+                .collect(Collectors.joining(", ", " Searched shards: [", "]"));
     }
 
     /**
@@ -153,8 +421,7 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions to(final String recipient) {
-        messageMatches(m -> m.getEnvelopeReceiver().equals(recipient))
-                .orElseThrow(assertionError(ERROR_MESSAGE_TO, recipient));
+        messageMatches(m -> m.getEnvelopeReceiver().equals(recipient), ERROR_MESSAGE_TO, recipient);
         return this;
     }
 
@@ -167,20 +434,10 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions withSubject(final String subject) {
-        messageMatches(m -> subject(m).equals(subject))
-                .orElseThrow(assertionError(ERROR_MESSAGE_SUBJECT, subject));
+        contentMatches(c -> c.getSubject().equals(subject), ERROR_MESSAGE_SUBJECT, subject);
         return this;
     }
 
-    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
-    private String subject(final WiserMessage wiserMessage) {
-        try {
-            return wiserMessage.getMimeMessage().getSubject();
-        } catch (MessagingException e) {
-            throw new IllegalArgumentException("Invalid email message", e);
-        }
-    }
-
     /**
      * Checks that there was at least one email received that has a subject that
      * contains the search text.
@@ -190,8 +447,7 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions withSubjectContains(final String subject) {
-        messageMatches(m -> subject(m).contains(subject))
-                .orElseThrow(assertionError(ERROR_MESSAGE_SUBJECT, subject));
+        contentMatches(c -> c.getSubject().contains(subject), ERROR_MESSAGE_SUBJECT, subject);
         return this;
     }
 
@@ -204,46 +460,62 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions withContent(final String content) {
-        messageMatches(m -> messageBody(m).trim().equals(content.trim()))
-                .orElseThrow(assertionError(ERROR_MESSAGE_CONTENT, content));
-        return this;
-    }
-
-    @SuppressFBWarnings("EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS")
-    private String messageBody(final WiserMessage m) {
-        try {
-            return messageBody(m.getMimeMessage().getContent());
-        } catch (IOException | MessagingException e) {
-            throw new RuntimeException(e);
-        }
+        return withContent(content, new Normalization[0]);
     }
 
-    private String messageBody(final Object content) {
-        return contentAsString(content)
-                .or(() -> contentAsMimeMessage(content))
-                .or(() -> contentAsMultiPartMime(content))
-                .orElseThrow(() -> new RuntimeException("Unexpected MimeMessage content"));
-    }
-
-    private Maybe<String> contentAsString(final Object content) {
-        if (content instanceof String) {
-            return Maybe.just((String) content);
-        }
-        return Maybe.nothing();
+    /**
+     * Check that there was at least one email received that has a body that
+     * matches the content, once both have been normalized.
+     *
+     * <p>Leading and trailing whitespace is always ignored. The expected
+     * content is normalized once, while each message body is normalized on
+     * first use and then cached.</p>
+     *
+     * @param content the body of the email to search for
+     * @param modes   the normalizations to apply before comparing
+     *
+     * @return the {@code WiserAssertions} instance
+     */
+    public WiserAssertions withContent(final String content, final Normalization... modes) {
+        final Set<Normalization> normalizations = Normalizer.modes(modes);
+        final String expected = Normalizer.normalizeExpected(content, normalizations);
+        contentMatches(c -> Normalizer.sameText(expected, c.getNormalizedBody(normalizations)),
+                ERROR_MESSAGE_CONTENT, content);
+        return this;
     }
 
-    private Maybe<String> contentAsMimeMessage(final Object content) {
-        if (content instanceof MimeMessage) {
-            return Maybe.just(content.toString());
-        }
-        return Maybe.nothing();
+    /**
+     * Check that there was at least one email received that has
+     * {@code text/plain} parts that match the content.
+     *
+     * <p>Unlike {@link #withContent(String)}, any {@code text/html}
+     * alternative parts of the message are ignored.</p>
+     *
+     * @param content the plain text body of the email to search for
+     *
+     * @return the {@code WiserAssertions} instance
+     */
+    public WiserAssertions withTextContent(final String content) {
+        final String expected = content.trim();
+        contentMatches(c -> c.getTextBody().trim().equals(expected), ERROR_MESSAGE_TEXT_CONTENT, content);
+        return this;
     }
 
-    private Maybe<String> contentAsMultiPartMime(final Object content) {
-        if (content instanceof MimeMultipart) {
-            return mimeMultipartAsString((MimeMultipart) content);
-        }
-        return Maybe.nothing();
+    /**
+     * Check that there was at least one email received that has
+     * {@code text/html} parts that match the content.
+     *
+     * <p>Unlike {@link #withContent(String)}, any {@code text/plain}
+     * alternative parts of the message are ignored.</p>
+     *
+     * @param content the html body of the email to search for
+     *
+     * @return the {@code WiserAssertions} instance
+     */
+    public WiserAssertions withHtmlContent(final String content) {
+        final String expected = content.trim();
+        contentMatches(c -> c.getHtmlBody().trim().equals(expected), ERROR_MESSAGE_HTML_CONTENT, content);
+        return this;
     }
 
     /**
@@ -255,51 +527,33 @@ public final class WiserAssertions {
      * @return the {@code WiserAssertions} instance
      */
     public WiserAssertions withContentContains(final String content) {
-        messageMatches((WiserMessage m) -> messageBody(m).trim().contains(content))
-                .orElseThrow(assertionError(ERROR_MESSAGE_CONTENT_CONTAINS, content));
+        contentMatches(c -> c.getBody().trim().contains(content), ERROR_MESSAGE_CONTENT_CONTAINS, content);
         return this;
     }
 
     /**
-     * Converts a {@link MimeMultipart} into a {@link String} stripping out the
-     * mime part boundary and headers..
-     *
-     * @param mimeMultipart the message part to convert
-     *
-     * @return the message part as a string
+     * The state of a search across the shards.
      */
-    private Maybe<String> mimeMultipartAsString(final MimeMultipart mimeMultipart) {
-        return Result.toMaybe(Result.of(mimeMultipart::getCount)
-                        .map(count -> bodyPartsAsString(mimeMultipart, count)));
-    }
+    private static final class Search {
 
-    private String bodyPartsAsString(final MimeMultipart mimeMultipart, final int count) {
-        return IntStream.range(0, count)
-                .mapToObj(i -> bodyPart(mimeMultipart, i))
-                .map(this::bodyPartAsString)
-                .map(Result::orElseThrowUnchecked)
-                .collect(Collectors.joining());
-    }
+        private final AtomicBoolean stop = new AtomicBoolean();
+        private final AtomicInteger unreadable = new AtomicInteger();
 
-    private Result<String> bodyPartAsString(final Result<BodyPart> bodyPart) {
-        return bodyPartContent(bodyPart)
-                .flatMap(this::contentObjectAsString);
     }
 
-    private Result<Object> bodyPartContent(final Result<BodyPart> bodyPart) {
-        return bodyPart.flatMap(part -> Result.of(part::getContent));
-    }
+    /**
+     * The messages from a single source.
+     */
+    private static final class Shard {
 
-    private Result<BodyPart> bodyPart(final MimeMultipart mimeMultipart, final int i) {
-        return Result.of(() -> mimeMultipart.getBodyPart(i));
-    }
+        private final String name;
+        private final MessageStore store;
 
-    private Result<String> contentObjectAsString(final Object content) {
-        if (content instanceof MimeMultipart) {
-            return Result.of(() -> mimeMultipartAsString((MimeMultipart) content).orElse(""));
-        } else {
-            return Result.ok((String) content);
+        Shard(final String name, final MessageStore store) {
+            this.name = name;
+            this.store = store;
         }
+
     }
 
 }
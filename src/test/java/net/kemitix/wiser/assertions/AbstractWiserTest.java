@@ -9,7 +9,12 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.util.Properties;
 
+import javax.mail.Message;
+import javax.mail.MessagingException;
 import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
 
 abstract class AbstractWiserTest {
 
@@ -24,7 +29,7 @@ abstract class AbstractWiserTest {
         wiser.start();
     }
 
-    private int findFreePort() throws IOException {
+    protected int findFreePort() throws IOException {
         try(final ServerSocket serverSocket = new ServerSocket()) {
             serverSocket.bind(new InetSocketAddress(0));
             return serverSocket.getLocalPort();
@@ -45,14 +50,58 @@ abstract class AbstractWiserTest {
         return WiserAssertions.assertReceivedMessage(wiser);
     }
 
+    /**
+     * The test mail server.
+     *
+     * @return the Wiser server
+     */
+    protected Wiser getWiser() {
+        return wiser;
+    }
+
     protected Session getSession() {
+        return getSession(port);
+    }
+
+    /**
+     * A mail session for sending to a test mail server on another port.
+     *
+     * @param serverPort the port the server is running on
+     *
+     * @return the mail session
+     */
+    protected Session getSession(final int serverPort) {
         Properties properties = new Properties();
         properties.setProperty("mail.transport.protocol", "smtp");
         properties.setProperty("mail.smtp.host", "localhost");
-        properties.setProperty("mail.smtp.port", "" + port);
+        properties.setProperty("mail.smtp.port", "" + serverPort);
         return Session.getInstance(properties);
     }
 
+    /**
+     * Sends a plain text message from {@code bob@a.com} to a test mail server.
+     *
+     * @param serverPort the port the server is running on
+     * @param subject    the subject of the message
+     * @param body       the body of the message
+     * @param recipients the addresses to send the message to
+     *
+     * @throws MessagingException if the message can't be sent
+     */
+    protected void send(
+            final int serverPort,
+            final String subject,
+            final String body,
+            final String... recipients
+    ) throws MessagingException {
+        final MimeMessage message = new MimeMessage(getSession(serverPort));
+        message.setFrom(new InternetAddress("bob@a.com"));
+        message.setRecipients(Message.RecipientType.TO, String.join(",", recipients));
+        message.setSubject(subject);
+        message.setText(body);
+        Transport.send(message);
+    }
+
     /**
      * The test mail server port.
      *
@@ -0,0 +1,126 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.mail.MessagingException;
+
+/**
+ * Tests for {@link AsyncWiserAssertions}.
+ */
+public class AsyncWiserAssertionsTest extends AbstractWiserTest {
+
+    private AsyncWiserAssertions assertReceivedMessageAsync() {
+        return WiserAssertions.assertReceivedMessageAsync(getWiser())
+                .withTimeout(Duration.ofSeconds(5));
+    }
+
+    /**
+     * A message received before the assertion is made completes the future.
+     */
+    @Test
+    public void shouldCompleteForMessageAlreadyReceived() throws MessagingException {
+        //given
+        send(getPort(), "subject", "body", "carl@b.com");
+        //when
+        final CompletableFuture<Void> future = assertReceivedMessageAsync().to("carl@b.com");
+        //then
+        future.join();
+        assertThat(future).isCompletedWithValue(null);
+    }
+
+    /**
+     * A message received after the assertion is made completes every waiting
+     * future that it matches.
+     */
+    @Test
+    public void shouldCompleteAllWaitersForMessageReceivedLater() throws MessagingException {
+        //given
+        final AsyncWiserAssertions assertions = assertReceivedMessageAsync();
+        final List<CompletableFuture<Void>> futures = IntStream.range(0, 100)
+                .mapToObj(i -> assertions.withSubjectContains("later"))
+                .collect(Collectors.toList());
+        final CompletableFuture<Void> from = assertions.from("bob@a.com");
+        //when
+        send(getPort(), "sent later", "body", "carl@b.com");
+        //then
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        from.join();
+    }
+
+    /**
+     * A future fails with an {@link AssertionError} if no matching message is
+     * received before the timeout.
+     */
+    @Test
+    public void shouldFailOnTimeout() throws MessagingException {
+        //given
+        send(getPort(), "subject", "body", "carl@b.com");
+        //when
+        final CompletableFuture<Void> future = assertReceivedMessageAsync()
+                .withTimeout(Duration.ofMillis(100))
+                .to("lisa@c.com");
+        //then
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(future::join)
+                .withCauseInstanceOf(AssertionError.class)
+                .withMessageContaining("No message to [lisa@c.com] found!");
+    }
+
+    /**
+     * A predicate that throws an {@link AssertionError} fails only its own
+     * future, and the dispatcher carries on serving the others.
+     */
+    @Test
+    public void shouldSurviveFailingPredicate() throws MessagingException {
+        //given
+        final AsyncWiserAssertions assertions = assertReceivedMessageAsync();
+        final CompletableFuture<Void> failing = assertions.matches(m -> {
+            throw new AssertionError("predicate failed");
+        });
+        final CompletableFuture<Void> first = assertions.to("carl@b.com");
+        //when
+        send(getPort(), "first", "body", "carl@b.com");
+        //then
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(failing::join)
+                .withCauseInstanceOf(AssertionError.class)
+                .withMessageContaining("predicate failed");
+        first.join();
+        //and when
+        final CompletableFuture<Void> second = assertions.withSubject("second");
+        send(getPort(), "second", "body", "dave@b.com");
+        //then
+        second.join();
+    }
+
+    /**
+     * Clearing the messages held by Wiser, as tests often do between cases,
+     * doesn't stop later messages from completing a waiting future.
+     */
+    @Test
+    public void shouldCompleteForMessageReceivedAfterClear() throws MessagingException {
+        //given
+        send(getPort(), "first", "body", "carl@b.com");
+        send(getPort(), "second", "body", "dave@b.com");
+        final AsyncWiserAssertions assertions = assertReceivedMessageAsync();
+        final CompletableFuture<Void> waiting = assertions.withSubject("after clear");
+        // registered after the waiting future, so it is pending once this completes
+        assertions.withSubject("second").join();
+        //when
+        getWiser().getMessages().clear();
+        send(getPort(), "after clear", "body", "eve@b.com");
+        //then
+        waiting.join();
+    }
+
+}
@@ -0,0 +1,167 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.mail.MessagingException;
+
+/**
+ * Tests for saving and loading mailbox snapshots.
+ */
+public class MailboxSnapshotTest extends AbstractWiserTest {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Assertions against a saved snapshot see the same messages as against the
+     * server.
+     */
+    @Test
+    public void shouldAssertAgainstSavedSnapshot() throws MessagingException {
+        //given
+        send(getPort(), "newsletter", "news body", "carl@b.com", "dave@b.com");
+        send(getPort(), "reminder", "reminder body", "eve@b.com");
+        final Path snapshot = tempDir.resolve("mailbox.snapshot");
+        //when
+        WiserAssertions.saveSnapshot(getWiser(), snapshot);
+        //then
+        WiserAssertions.assertReceivedMessage(snapshot)
+                .from("bob@a.com")
+                .to("carl@b.com")
+                .to("dave@b.com")
+                .to("eve@b.com")
+                .withSubject("newsletter")
+                .withSubject("reminder")
+                .withContent("reminder body");
+    }
+
+    /**
+     * Identical content is only saved, and loaded, once.
+     */
+    @Test
+    public void shouldSaveIdenticalContentOnce() throws IOException, MessagingException {
+        //given
+        send(getPort(), "newsletter", "news body", "carl@b.com", "dave@b.com", "eve@b.com");
+        final Path snapshot = tempDir.resolve("mailbox.snapshot");
+        //when
+        MailboxSnapshot.write(new MessageStore(getWiser().getMessages()), snapshot);
+        final MessageStore loaded = MailboxSnapshot.read(snapshot);
+        //then
+        assertThat(loaded.messages()).hasSize(3);
+        assertThat(loaded.contents()).hasSize(1);
+    }
+
+    /**
+     * Saving over an existing snapshot replaces it, leaving no temporary file
+     * behind.
+     */
+    @Test
+    public void shouldReplaceExistingSnapshot() throws IOException, MessagingException {
+        //given
+        send(getPort(), "first", "first body", "carl@b.com");
+        final Path snapshot = tempDir.resolve("mailbox.snapshot");
+        WiserAssertions.saveSnapshot(getWiser(), snapshot);
+        //when
+        send(getPort(), "second", "second body", "carl@b.com");
+        WiserAssertions.saveSnapshot(getWiser(), snapshot);
+        //then
+        assertThat(MailboxSnapshot.read(snapshot).contents())
+                .extracting(MessageContent::getSubject)
+                .containsExactly("first", "second");
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(snapshot);
+        }
+    }
+
+    /**
+     * A file that is not a snapshot is rejected.
+     */
+    @Test
+    public void shouldRejectFileThatIsNotASnapshot() throws IOException {
+        //given
+        final Path file = tempDir.resolve("not.snapshot");
+        Files.write(file, "From bob@a.com".getBytes(StandardCharsets.UTF_8));
+        //then
+        assertThatExceptionOfType(WiserAssertionException.class)
+                .isThrownBy(() -> WiserAssertions.assertReceivedMessage(file));
+    }
+
+    private Path snapshotWithHeader(final int contentCount, final int messageCount, final int... ints)
+            throws IOException {
+        final Path file = tempDir.resolve("corrupt.snapshot");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x57495352);
+            out.writeInt(1);
+            out.writeInt(contentCount);
+            out.writeInt(messageCount);
+            for (final int value : ints) {
+                out.writeInt(value);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * A snapshot claiming more contents than the file could hold is rejected
+     * before anything is allocated for them.
+     */
+    @Test
+    public void shouldRejectImpossibleCounts() throws IOException {
+        //given
+        final Path file = snapshotWithHeader(Integer.MAX_VALUE, -1);
+        //then
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> MailboxSnapshot.read(file))
+                .withMessageContaining("Corrupt mailbox snapshot");
+    }
+
+    /**
+     * A snapshot with a content longer than the rest of the file is rejected.
+     */
+    @Test
+    public void shouldRejectImpossibleLength() throws IOException {
+        //given
+        final Path file = snapshotWithHeader(1, 0, Integer.MAX_VALUE, 0, 0, 0);
+        //then
+        assertThatExceptionOfType(WiserAssertionException.class)
+                .isThrownBy(() -> WiserAssertions.assertReceivedMessage(file))
+                .withCauseInstanceOf(IOException.class);
+    }
+
+    /**
+     * A snapshot with a message referring to a content that isn't there is
+     * rejected.
+     */
+    @Test
+    public void shouldRejectUnknownContentNumber() throws IOException {
+        //given
+        final Path file = tempDir.resolve("corrupt.snapshot");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x57495352);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.write('x');
+            out.writeUTF("bob@a.com");
+            out.writeUTF("carl@b.com");
+            out.writeInt(1);
+        }
+        //then
+        assertThatExceptionOfType(IOException.class)
+                .isThrownBy(() -> MailboxSnapshot.read(file))
+                .withMessageContaining("Corrupt mailbox snapshot");
+    }
+
+}
@@ -0,0 +1,91 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+/**
+ * Tests for {@link MessageStore}.
+ */
+public class MessageStoreTest extends AbstractWiserTest {
+
+    /**
+     * A message sent to many recipients is stored once per recipient, but its
+     * content is only stored, and parsed, once.
+     */
+    @Test
+    public void shouldShareContentOfFanOutMessage() throws MessagingException {
+        //given
+        send(getPort(), "newsletter", "newsletter body", "carl@b.com", "dave@b.com", "eve@b.com");
+        //when
+        final MessageStore store = new MessageStore(getWiser().getMessages());
+        //then
+        final List<StoredMessage> messages = store.messages();
+        assertThat(messages).hasSize(3);
+        assertThat(messages).extracting(StoredMessage::getEnvelopeReceiver)
+                .containsExactly("carl@b.com", "dave@b.com", "eve@b.com");
+        assertThat(store.contents()).hasSize(1);
+        assertThat(messages.get(0).getContent())
+                .isSameAs(messages.get(2).getContent());
+    }
+
+    /**
+     * Messages that arrive after the store is created are picked up by the
+     * next query.
+     */
+    @Test
+    public void shouldFollowNewMessages() throws MessagingException {
+        //given
+        send(getPort(), "first", "newsletter body", "carl@b.com");
+        final MessageStore store = new MessageStore(getWiser().getMessages());
+        assertThat(store.messages()).hasSize(1);
+        //when
+        send(getPort(), "second", "newsletter body", "carl@b.com");
+        //then
+        assertThat(store.messages()).hasSize(2);
+        assertThat(store.contents()).extracting(MessageContent::getSubject)
+                .containsExactly("first", "second");
+    }
+
+    /**
+     * When the messages held by Wiser are cleared, the store starts again from
+     * those that arrive afterwards.
+     */
+    @Test
+    public void shouldStartAgainWhenMessagesAreCleared() throws MessagingException {
+        //given
+        send(getPort(), "first", "newsletter body", "carl@b.com");
+        final MessageStore store = new MessageStore(getWiser().getMessages());
+        assertThat(store.contents()).hasSize(1);
+        //when
+        getWiser().getMessages().clear();
+        send(getPort(), "second", "newsletter body", "dave@b.com");
+        //then
+        assertThat(store.messages()).extracting(StoredMessage::getEnvelopeReceiver)
+                .containsExactly("dave@b.com");
+        assertThat(store.contents()).extracting(MessageContent::getSubject)
+                .containsExactly("second");
+    }
+
+    /**
+     * Every assertion on the same Wiser shares one store, so its messages are
+     * only parsed once.
+     */
+    @Test
+    public void shouldShareOneStorePerWiser() throws MessagingException {
+        //given
+        send(getPort(), "newsletter", "newsletter body", "carl@b.com");
+        final MessageStore store = MessageStore.of(getWiser());
+        final MessageContent content = store.contents().get(0);
+        //when
+        final MessageStore again = MessageStore.of(getWiser());
+        //then
+        assertThat(again).isSameAs(store);
+        assertThat(again.contents()).containsExactly(content);
+    }
+
+}
@@ -0,0 +1,88 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
+
+/**
+ * Tests for {@link MultipartWalker}.
+ */
+public class MultipartWalkerTest {
+
+    private static MimeBodyPart text(final String text) throws MessagingException {
+        final MimeBodyPart part = new MimeBodyPart();
+        part.setText(text);
+        return part;
+    }
+
+    private static MimeBodyPart multipart(final MimeBodyPart... parts) throws MessagingException {
+        final MimeMultipart multipart = new MimeMultipart();
+        for (final MimeBodyPart part : parts) {
+            multipart.addBodyPart(part);
+        }
+        final MimeBodyPart wrapper = new MimeBodyPart();
+        wrapper.setContent(multipart);
+        return wrapper;
+    }
+
+    private static MimeBodyPart nested(final int depth) throws MessagingException {
+        MimeBodyPart part = text("leaf");
+        for (int i = 0; i < depth; i++) {
+            part = multipart(part);
+        }
+        return part;
+    }
+
+    /**
+     * Leaves are visited in document order, however deeply they are nested.
+     */
+    @Test
+    public void shouldVisitLeavesInDocumentOrder() throws MessagingException {
+        //given
+        final MimeBodyPart root = multipart(
+                text("a"),
+                multipart(text("b"), multipart(text("c"))),
+                text("d"));
+        final List<Object> visited = new ArrayList<>();
+        //when
+        new MultipartWalker().walk(root, (part, content) -> visited.add(content));
+        //then
+        assertThat(visited).containsExactly("a", "b", "c", "d");
+    }
+
+    /**
+     * Parts nested up to the maximum depth are visited.
+     */
+    @Test
+    public void shouldWalkToMaximumDepth() throws MessagingException {
+        //given
+        final List<Object> visited = new ArrayList<>();
+        //when
+        new MultipartWalker(5).walk(nested(5), (part, content) -> visited.add(content));
+        //then
+        assertThat(visited).containsExactly("leaf");
+    }
+
+    /**
+     * Parts nested beyond the maximum depth are rejected, rather than
+     * overflowing the stack.
+     */
+    @Test
+    public void shouldRejectPartsNestedTooDeeply() throws MessagingException {
+        //given
+        final MimeBodyPart root = nested(10_000);
+        //then
+        assertThatExceptionOfType(MimeMessageException.class)
+                .isThrownBy(() ->
+                        new MultipartWalker().walk(root, (part, content) -> { }));
+    }
+
+}
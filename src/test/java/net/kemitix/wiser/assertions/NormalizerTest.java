@@ -0,0 +1,117 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link Normalizer}.
+ */
+public class NormalizerTest {
+
+    private static String normalize(final String text, final Normalization... modes) {
+        return Normalizer.normalize(text, Normalizer.modes(modes));
+    }
+
+    /**
+     * Test {@link Normalizer#normalize(String, java.util.Set)} only trims the
+     * text when no modes are given.
+     */
+    @Test
+    public void shouldOnlyTrimWithNoModes() {
+        //given
+        final String text = "  a\r\n  b \n";
+        //when
+        final String result = normalize(text);
+        //then
+        assertThat(result).isEqualTo("a\r\n  b");
+    }
+
+    /**
+     * Test {@link Normalization#LINE_ENDINGS} converts CRLF and CR to LF.
+     */
+    @Test
+    public void shouldNormalizeLineEndings() {
+        //given
+        final String text = "a\r\nb\rc\nd";
+        //when
+        final String result = normalize(text, Normalization.LINE_ENDINGS);
+        //then
+        assertThat(result).isEqualTo("a\nb\nc\nd");
+    }
+
+    /**
+     * Test {@link Normalization#WHITESPACE} collapses each run of whitespace
+     * to a single space.
+     */
+    @Test
+    public void shouldCollapseWhitespace() {
+        //given
+        final String text = " a \t\r\n b  c ";
+        //when
+        final String result = normalize(text, Normalization.WHITESPACE);
+        //then
+        assertThat(result).isEqualTo("a b c");
+    }
+
+    /**
+     * Test {@link Normalization#HTML_TO_TEXT} drops hidden content and tags,
+     * breaks lines after block elements and decodes entities.
+     */
+    @Test
+    public void shouldConvertHtmlToText() {
+        //given
+        final String html = "<html><head><style>p { color: red; }</style></head>"
+                + "<body><!-- hidden --><p>Hello&nbsp;<b>Carl</b></p><p>Tom &amp; Jerry&#33;&#x21;<br/>Bye</p>"
+                + "<script>alert('x');</script></body></html>";
+        //when
+        final String text = normalize(html, Normalization.HTML_TO_TEXT);
+        final String collapsed = normalize(html, Normalization.HTML_TO_TEXT, Normalization.WHITESPACE);
+        //then
+        assertThat(text).isEqualTo("Hello Carl\nTom & Jerry!!\nBye");
+        assertThat(collapsed).isEqualTo("Hello Carl Tom & Jerry!! Bye");
+    }
+
+    /**
+     * Test {@link Normalization#HTML_TO_TEXT} leaves unknown and out of range
+     * entities as they were.
+     */
+    @Test
+    public void shouldLeaveUnknownEntities() {
+        //given
+        final String html = "&bogus; &#99999999;";
+        //when
+        final String result = normalize(html, Normalization.HTML_TO_TEXT);
+        //then
+        assertThat(result).isEqualTo("&bogus; &#99999999;");
+    }
+
+    /**
+     * Test {@link Normalizer#normalizeExpected(String, java.util.Set)} doesn't
+     * convert the expected content as html.
+     */
+    @Test
+    public void shouldNotConvertExpectedContent() {
+        //given
+        final String content = " a <b>  c ";
+        //when
+        final String result = Normalizer.normalizeExpected(content,
+                Normalizer.modes(Normalization.HTML_TO_TEXT, Normalization.WHITESPACE));
+        //then
+        assertThat(result).isEqualTo("a <b> c");
+    }
+
+    /**
+     * Test {@link Normalizer#sameText(String, String)} compares the text.
+     */
+    @Test
+    public void shouldCompareText() {
+        //given
+        final String text = "abc";
+        //then
+        assertThat(Normalizer.sameText(text, "abc")).isTrue();
+        assertThat(Normalizer.sameText(text, "abd")).isFalse();
+        assertThat(Normalizer.sameText(text, "abcd")).isFalse();
+    }
+
+}
@@ -0,0 +1,74 @@
+package net.kemitix.wiser.assertions;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.subethamail.wiser.Wiser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+
+import java.io.IOException;
+
+import javax.mail.MessagingException;
+
+/**
+ * Tests for {@link WiserAssertions} across several Wiser servers.
+ */
+public class ShardedWiserAssertionsTest extends AbstractWiserTest {
+
+    private int otherPort;
+
+    private Wiser other;
+
+    @BeforeEach
+    public void setUpOther() throws IOException {
+        otherPort = findFreePort();
+        other = new Wiser(otherPort);
+        other.start();
+    }
+
+    @AfterEach
+    public void tearDownOther() {
+        other.stop();
+    }
+
+    /**
+     * Each assertion is satisfied by whichever server received a matching
+     * message, and reports that server.
+     */
+    @Test
+    public void shouldMatchAcrossServers() throws MessagingException {
+        //given
+        send(getPort(), "first", "body", "carl@b.com");
+        send(otherPort, "second", "body", "dave@b.com");
+        //when
+        final WiserAssertions assertions =
+                WiserAssertions.assertReceivedMessage(getWiser(), other);
+        //then
+        assertThat(assertions.lastMatchedShard()).isEmpty();
+        assertions.to("carl@b.com");
+        assertThat(assertions.lastMatchedShard()).contains("wiser[0]:" + getPort());
+        assertions.withSubject("second");
+        assertThat(assertions.lastMatchedShard()).contains("wiser[1]:" + otherPort);
+    }
+
+    /**
+     * An assertion fails if no server received a matching message, and names
+     * the servers that were searched.
+     */
+    @Test
+    public void shouldFailWhenNoServerMatches() throws MessagingException {
+        //given
+        send(getPort(), "first", "body", "carl@b.com");
+        send(otherPort, "second", "body", "dave@b.com");
+        //then
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        WiserAssertions.assertReceivedMessage(getWiser(), other)
+                                .to("eve@b.com"))
+                .withMessage("No message to [eve@b.com] found! Searched shards: [wiser[0]:"
+                        + getPort() + ", wiser[1]:" + otherPort + "]");
+    }
+
+}
@@ -10,14 +10,17 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.activation.DataHandler;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
+import javax.mail.Part;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 
 /**
  * Tests for {@link WiserAssertions}.
@@ -58,6 +61,209 @@ public class WiserAssertionsTest extends AbstractWiserTest {
         }
     }
 
+    /**
+     * Sends a multipart/alternative message, with both plain text and html
+     * versions of the body, to the Wiser server.
+     *
+     * @param text the plain text body
+     * @param html the html body
+     */
+    private void sendAlternativeMessage(final String text, final String html) {
+        try {
+            MimeMessage message = new MimeMessage(getSession());
+            message.setFrom(new InternetAddress("from"));
+            message.setRecipients(Message.RecipientType.TO, "to");
+            message.setSubject("subject", "UTF-8");
+            final Multipart mimeMultipart = new MimeMultipart("alternative");
+            final MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setText(text);
+            mimeMultipart.addBodyPart(textPart);
+            final MimeBodyPart htmlPart = new MimeBodyPart();
+            htmlPart.setContent(html, "text/html");
+            mimeMultipart.addBodyPart(htmlPart);
+            message.setContent(mimeMultipart);
+            Transport.send(message);
+        } catch (MessagingException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Test {@link WiserAssertions#withTextContent(String)} matches only the
+     * plain text part of an alternative message.
+     */
+    @Test
+    public void testTextContentMatches() {
+        //given
+        final String text = "plain body";
+        final String html = "<p>html body</p>";
+        //when
+        sendAlternativeMessage(text, html);
+        //then
+        assertReceivedMessage()
+                .withTextContent(text)
+                .withContentContains(html);
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .withTextContent(html));
+    }
+
+    /**
+     * Test {@link WiserAssertions#withHtmlContent(String)} matches only the
+     * html part of an alternative message.
+     */
+    @Test
+    public void testHtmlContentMatches() {
+        //given
+        final String text = "plain body";
+        final String html = "<p>html body</p>";
+        //when
+        sendAlternativeMessage(text, html);
+        //then
+        assertReceivedMessage().withHtmlContent(html);
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .withHtmlContent(text));
+    }
+
+    /**
+     * Sends a message with a custom header, a text body and a binary
+     * attachment to the Wiser server.
+     *
+     * @param header the value of the X-Custom header
+     * @param body   the text body
+     */
+    private void sendMessageWithAttachment(final String header, final String body) {
+        try {
+            MimeMessage message = new MimeMessage(getSession());
+            message.setFrom(new InternetAddress("from"));
+            message.setRecipients(Message.RecipientType.TO, "to");
+            message.setSubject("subject", "UTF-8");
+            message.setHeader("X-Custom", header);
+            final Multipart mimeMultipart = new MimeMultipart();
+            final MimeBodyPart textPart = new MimeBodyPart();
+            textPart.setText(body);
+            mimeMultipart.addBodyPart(textPart);
+            final MimeBodyPart attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(
+                    new ByteArrayDataSource(new byte[]{1, 2, 3}, "application/octet-stream")));
+            attachment.setFileName("report.bin");
+            attachment.setDisposition(Part.ATTACHMENT);
+            mimeMultipart.addBodyPart(attachment);
+            message.setContent(mimeMultipart);
+            Transport.send(message);
+        } catch (MessagingException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Test {@link WiserAssertions#matches(java.util.function.Predicate)} where
+     * a message satisfies the predicate.
+     */
+    @Test
+    public void testMatchesPredicate() {
+        //given
+        final String body = "message body";
+        //when
+        sendMessageWithAttachment("custom value", body);
+        //then
+        assertReceivedMessage()
+                .matches(m -> m.getHeader("x-custom").contains("custom value"))
+                .matches(m -> m.getAttachments().size() == 1)
+                .matches(m -> m.getTextBody().trim().equals(body))
+                .matches(m -> "subject".equals(m.getSubject()));
+    }
+
+    /**
+     * Test {@link WiserAssertions#matches(java.util.function.Predicate)} where
+     * no message satisfies the predicate.
+     */
+    @Test
+    public void testMatchesPredicateNotMatches() {
+        //given
+        sendMessageWithAttachment("custom value", "message body");
+        //then
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .matches(m -> m.getHeader("X-Custom").contains("other value")))
+                .withMessage("No message matching predicate found!");
+    }
+
+    /**
+     * Test {@link WiserAssertions#matches(String, java.util.function.Predicate)}
+     * names the check when no message satisfies the predicate.
+     */
+    @Test
+    public void testDescribedPredicateNotMatches() {
+        //given
+        sendMessageWithAttachment("custom value", "message body");
+        //then
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .matches("X-Custom is other value",
+                                        m -> m.getHeader("X-Custom").contains("other value")))
+                .withMessage("No message matching [X-Custom is other value] found!");
+    }
+
+    /**
+     * Sends a message whose only text part is nested more deeply than
+     * {@link MultipartWalker#DEFAULT_MAX_DEPTH} multiparts.
+     *
+     * @param body the body of the deeply nested text part
+     */
+    private void sendOverNestedMessage(final String body) {
+        try {
+            MimeMessage message = new MimeMessage(getSession());
+            message.setFrom(new InternetAddress("from"));
+            message.setRecipients(Message.RecipientType.TO, "to");
+            message.setSubject("nested", "UTF-8");
+            MimeBodyPart part = new MimeBodyPart();
+            part.setText(body);
+            for (int i = 0; i < MultipartWalker.DEFAULT_MAX_DEPTH + 5; i++) {
+                final Multipart mimeMultipart = new MimeMultipart();
+                mimeMultipart.addBodyPart(part);
+                part = new MimeBodyPart();
+                part.setContent(mimeMultipart);
+            }
+            final Multipart mimeMultipart = new MimeMultipart();
+            mimeMultipart.addBodyPart(part);
+            message.setContent(mimeMultipart);
+            Transport.send(message);
+        } catch (MessagingException ex) {
+            LOG.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Test that a message nested too deeply to be read doesn't prevent
+     * content assertions about the other messages, and that a failure says
+     * how many messages could not be read.
+     */
+    @Test
+    public void testOverNestedMessageDoesNotMatch() {
+        //given
+        final String body = "message body";
+        //when
+        sendOverNestedMessage("deep body");
+        sendMimeMultipartMessage("from", "to", "subject", body);
+        //then
+        assertReceivedMessage()
+                .withContent(body)
+                .withContentContains("age bo")
+                .withSubject("nested");
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .withContentContains("deep body"))
+                .withMessage("No message with content containing [deep body] found!"
+                        + " (1 message(s) could not be read)");
+    }
+
     /**
      * Test {@link WiserAssertions#withContent(java.lang.String)} where the
      * content of the email matches.
@@ -89,6 +295,76 @@ public class WiserAssertionsTest extends AbstractWiserTest {
                                 .withContent("Other body"));
     }
 
+    /**
+     * Test {@link WiserAssertions#withContent(String, Normalization...)} where
+     * the content of the email matches once normalized.
+     */
+    @Test
+    public void testNormalizedContentMatches() {
+        //given
+        final String body = "line one\r\nline  two";
+        //when
+        sendMimeMultipartMessage("from", "to", "subject", body);
+        //then
+        assertReceivedMessage()
+                .withContent("line one\nline  two", Normalization.LINE_ENDINGS)
+                .withContent("line one line two", Normalization.WHITESPACE);
+    }
+
+    /**
+     * Test {@link WiserAssertions#withContent(String, Normalization...)} with
+     * {@link Normalization#HTML_TO_TEXT} compares the text of the html part of
+     * an alternative message, ignoring its plain text part.
+     */
+    @Test
+    public void testHtmlToTextContentMatches() {
+        //given
+        final String text = "plain body";
+        final String html = "<p>Hello&nbsp;<b>Carl</b></p>\n<p>Bye</p>";
+        //when
+        sendAlternativeMessage(text, html);
+        //then
+        assertReceivedMessage()
+                .withContent("Hello Carl Bye",
+                        Normalization.HTML_TO_TEXT, Normalization.WHITESPACE);
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .withContent(text, Normalization.HTML_TO_TEXT));
+    }
+
+    /**
+     * Test {@link WiserAssertions#withContent(String, Normalization...)} with
+     * {@link Normalization#HTML_TO_TEXT} leaves a plain text message as it
+     * was.
+     */
+    @Test
+    public void testHtmlToTextKeepsPlainTextMessage() {
+        //given
+        final String body = "a <tag> b";
+        //when
+        sendMimeMultipartMessage("from", "to", "subject", body);
+        //then
+        assertReceivedMessage().withContent(body, Normalization.HTML_TO_TEXT);
+    }
+
+    /**
+     * Test {@link WiserAssertions#withContent(String, Normalization...)} where
+     * the content of the email does not match once normalized.
+     */
+    @Test
+    public void testNormalizedContentNotMatches() {
+        //given
+        final String body = "line one\r\nline two";
+        //when
+        sendMimeMultipartMessage("from", "to", "subject", body);
+        //then
+        assertThatExceptionOfType(AssertionError.class)
+                .isThrownBy(() ->
+                        assertReceivedMessage()
+                                .withContent("line one\nline three", Normalization.LINE_ENDINGS));
+    }
+
     /**
      * Test {@link WiserAssertions#withContentContains(String)} where the
      * content of the email matches.